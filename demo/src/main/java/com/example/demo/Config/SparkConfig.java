@@ -25,6 +25,9 @@ public class SparkConfig {
     @Value("${spark.apiKey}")
     private String apiKey;
 
+    @Value("${spark.maxConversations:1000}")
+    private int maxConversations;
+
     @Bean
     public OkHttpClient okHttpClient() {
         return new OkHttpClient.Builder()
@@ -40,4 +43,5 @@ public class SparkConfig {
     public String getAppid() { return appid; }
     public String getApiSecret() { return apiSecret; }
     public String getApiKey() { return apiKey; }
+    public int getMaxConversations() { return maxConversations; }
 }
\ No newline at end of file
@@ -43,10 +43,12 @@ public class SparkChatController {
     /**
      * 与星火大模型对话 (SSE流式响应)
      * @param question 用户问题
+     * @param conversationId 会话ID，不传时使用默认会话
      * @return SSE流
      */
     @GetMapping(value = "/chatStream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter chatStream(@RequestParam String question) {
+    public SseEmitter chatStream(@RequestParam String question,
+                                 @RequestParam(defaultValue = SparkChatService.DEFAULT_CONVERSATION) String conversationId) {
         String streamId = UUID.randomUUID().toString();
         System.out.println("创建SSE连接: " + streamId + " 问题: " + question);
 
@@ -67,7 +69,7 @@ public class SparkChatController {
         });
 
         try {
-            sparkChatService.chatWithSparkStream(question, streamId, emitter);
+            sparkChatService.chatWithSparkStream(conversationId, question, streamId, emitter);
         } catch (Exception e) {
             System.err.println("处理SSE请求失败: " + e.getMessage());
             e.printStackTrace();
@@ -79,12 +81,14 @@ public class SparkChatController {
 
     /**
      * 获取对话历史
+     * @param conversationId 会话ID，不传时使用默认会话
      * @return 历史对话列表
      */
     @GetMapping("/getHistory")
-    public ResponseEntity<List<SparkChatService.RoleContent>> getHistory() {
+    public ResponseEntity<List<SparkChatService.RoleContent>> getHistory(
+            @RequestParam(defaultValue = SparkChatService.DEFAULT_CONVERSATION) String conversationId) {
         try {
-            List<SparkChatService.RoleContent> history = sparkChatService.getChatHistory();
+            List<SparkChatService.RoleContent> history = sparkChatService.getChatHistory(conversationId);
             System.out.println("获取历史记录，数量: " + history.size());
             return ResponseEntity.ok(history);
         } catch (Exception e) {
@@ -93,13 +97,44 @@ public class SparkChatController {
         }
     }
 
+    /**
+     * 从指定消息处创建对话分支 (如"从这里重试")
+     * @param conversationId 原会话ID
+     * @param messages 新分支保留的消息条数
+     * @return 新会话ID
+     */
+    @PostMapping("/forkHistory")
+    public ResponseEntity<Map<String, Object>> forkHistory(
+            @RequestParam(defaultValue = SparkChatService.DEFAULT_CONVERSATION) String conversationId,
+            @RequestParam int messages) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            String forkId = sparkChatService.forkConversation(conversationId, messages);
+            response.put("status", 200);
+            response.put("message", "创建分支成功");
+            response.put("data", forkId);
+            System.out.println("创建对话分支: " + conversationId + " -> " + forkId + " 保留消息数: " + messages);
+        } catch (IllegalArgumentException e) {
+            System.err.println("创建对话分支失败: " + e.getMessage());
+            response.put("status", 400);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            System.err.println("创建对话分支失败: " + e.getMessage());
+            throw new CustomException("500", "创建对话分支失败");
+        }
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 清空对话历史
+     * @param conversationId 会话ID，不传时使用默认会话
      */
     @DeleteMapping("/delHistory")
-    public ResponseEntity<Void> clearHistory() {
+    public ResponseEntity<Void> clearHistory(
+            @RequestParam(defaultValue = SparkChatService.DEFAULT_CONVERSATION) String conversationId) {
         try {
-            sparkChatService.clearChatHistory();
+            sparkChatService.clearChatHistory(conversationId);
             System.out.println("已清空对话历史");
             return ResponseEntity.ok().build();
         } catch (Exception e) {
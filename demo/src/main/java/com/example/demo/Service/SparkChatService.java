@@ -1,7 +1,6 @@
 package com.example.demo.Service;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.annotation.JSONField;
 import com.example.demo.Config.SparkConfig;
@@ -27,23 +26,31 @@ public class SparkChatService {
     @Resource
     private OkHttpClient okHttpClient;
 
-    private final List<RoleContent> historyList = new CopyOnWriteArrayList<>();
+    public static final String DEFAULT_CONVERSATION = "default";
+
+    /**
+     * 会话ID -> 该会话最新一条消息节点
+     * 历史为不可变链表，分支之间共享公共前缀
+     * 按访问顺序淘汰，最多保留spark.maxConversations个会话
+     */
+    private final Map<String, HistoryNode> conversations = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, HistoryNode> eldest) {
+                    return size() > sparkConfig.getMaxConversations();
+                }
+            });
     private final Map<String, SseEmitter> sseEmitters = new ConcurrentHashMap<>();
 
     public void chatWithSparkStream(String question, String streamId, SseEmitter emitter) {
+        chatWithSparkStream(DEFAULT_CONVERSATION, question, streamId, emitter);
+    }
+
+    public void chatWithSparkStream(String conversationId, String question, String streamId, SseEmitter emitter) {
         sseEmitters.put(streamId, emitter);
 
         // 添加用户消息到历史
-        RoleContent userMessage = new RoleContent();
-        userMessage.role = "user";
-        userMessage.content = question;
-        historyList.add(userMessage);
-
-        // 创建AI消息占位
-        RoleContent assistantMessage = new RoleContent();
-        assistantMessage.role = "assistant";
-        assistantMessage.content = "";
-        historyList.add(assistantMessage);
+        HistoryNode userNode = append(conversationId, "user", question);
 
         emitter.onCompletion(() -> {
             sseEmitters.remove(streamId);
@@ -68,18 +75,52 @@ public class SparkChatService {
                     .url(url)
                     .build();
 
-            okHttpClient.newWebSocket(request, new SparkWebSocketListener(streamId, question));
+            okHttpClient.newWebSocket(request, new SparkWebSocketListener(conversationId, streamId, userNode));
         } catch (Exception e) {
             emitter.completeWithError(e);
         }
     }
 
     public List<RoleContent> getChatHistory() {
-        return new ArrayList<>(historyList);
+        return getChatHistory(DEFAULT_CONVERSATION);
+    }
+
+    public List<RoleContent> getChatHistory(String conversationId) {
+        HistoryNode head = conversations.get(conversationId);
+        if (head == null) {
+            return new ArrayList<>();
+        }
+        RoleContent[] messages = new RoleContent[head.size];
+        for (HistoryNode node = head; node != null; node = node.parent) {
+            messages[node.size - 1] = newRoleContent(node.role, node.content);
+        }
+        return new ArrayList<>(Arrays.asList(messages));
+    }
+
+    /**
+     * 从指定会话的第messages条消息处创建分支
+     * 新分支直接引用原会话的节点，不复制历史；定位节点借助跳跃指针，耗时O(log n)
+     * @param sourceId 原会话ID
+     * @param messages 新分支保留的消息条数
+     * @return 新会话ID
+     */
+    public String forkConversation(String sourceId, int messages) {
+        HistoryNode head = conversations.get(sourceId);
+        int size = head == null ? 0 : head.size;
+        if (messages < 0 || messages > size) {
+            throw new IllegalArgumentException("messages超出范围: " + messages + ", 当前消息数: " + size);
+        }
+
+        String forkId = UUID.randomUUID().toString();
+        HistoryNode node = head == null ? null : head.ancestor(messages);
+        if (node != null) {
+            conversations.put(forkId, node);
+        }
+        return forkId;
     }
 
-    public void clearChatHistory() {
-        historyList.clear();
+    public void clearChatHistory(String conversationId) {
+        conversations.remove(conversationId);
     }
 
     public boolean testConnection() {
@@ -97,15 +138,57 @@ public class SparkChatService {
         }
     }
 
-    private boolean canAddHistory() {
-        int historyLength = historyList.stream()
-                .mapToInt(rc -> rc.content.length())
-                .sum();
-        if (historyLength > 12000) {
-            historyList.subList(0, Math.min(5, historyList.size())).clear();
-            return false;
+    HistoryNode head(String conversationId) {
+        return conversations.get(conversationId);
+    }
+
+    HistoryNode append(String conversationId, String role, String content) {
+        return conversations.compute(conversationId, (id, head) -> new HistoryNode(head, role, content));
+    }
+
+    /**
+     * AI回复挂在对应的问题节点下，仅当会话最新节点仍是该问题时才推进会话
+     */
+    void appendAnswer(String conversationId, HistoryNode userNode, String answer) {
+        HistoryNode answerNode = new HistoryNode(userNode, "assistant", answer);
+        if (!conversations.replace(conversationId, userNode, answerNode)) {
+            System.out.println("会话已变更，未保存AI回复: " + conversationId);
         }
-        return true;
+    }
+
+    String buildRequest(HistoryNode userNode) {
+        // Header
+        JSONObject header = new JSONObject();
+        header.put("app_id", sparkConfig.getAppid());
+        header.put("uid", UUID.randomUUID().toString().substring(0, 10));
+
+        // Parameter
+        JSONObject parameter = new JSONObject();
+        JSONObject chat = new JSONObject();
+        chat.put("domain", sparkConfig.getDomain());
+        chat.put("temperature", 0.5);
+        chat.put("max_tokens", 8192);
+        chat.put("auditing", "default");
+        parameter.put("chat", chat);
+
+        // History (含本次问题)，直接拼接各节点缓存的JSON片段
+        Deque<String> text = new ArrayDeque<>();
+        for (HistoryNode node = userNode; node != null; node = node.parent) {
+            if (node.json != null) {
+                text.addFirst(node.json);
+            }
+        }
+
+        return "{\"header\":" + header.toJSONString() +
+                ",\"parameter\":" + parameter.toJSONString() +
+                ",\"payload\":{\"message\":{\"text\":[" + String.join(",", text) + "]}}}";
+    }
+
+    private static RoleContent newRoleContent(String role, String content) {
+        RoleContent roleContent = new RoleContent();
+        roleContent.role = role;
+        roleContent.content = content;
+        return roleContent;
     }
 
     private String getAuthUrl(String hostUrl, String apiKey, String apiSecret) throws Exception {
@@ -139,64 +222,24 @@ public class SparkChatService {
     }
 
     private class SparkWebSocketListener extends WebSocketListener {
+        private final String conversationId;
         private final String streamId;
-        private final String question;
+        private final HistoryNode userNode;
+        private final StringBuilder answer = new StringBuilder();
+        private boolean answerSaved;
         private WebSocket webSocket;
 
-        public SparkWebSocketListener(String streamId, String question) {
+        public SparkWebSocketListener(String conversationId, String streamId, HistoryNode userNode) {
+            this.conversationId = conversationId;
             this.streamId = streamId;
-            this.question = question;
+            this.userNode = userNode;
         }
 
         @Override
         public void onOpen(WebSocket webSocket, Response response) {
             this.webSocket = webSocket;
             try {
-                JSONObject requestJson = new JSONObject();
-
-                // Header
-                JSONObject header = new JSONObject();
-                header.put("app_id", sparkConfig.getAppid());
-                header.put("uid", UUID.randomUUID().toString().substring(0, 10));
-
-                // Parameter
-                JSONObject parameter = new JSONObject();
-                JSONObject chat = new JSONObject();
-                chat.put("domain", sparkConfig.getDomain());
-                chat.put("temperature", 0.5);
-                chat.put("max_tokens", 8192);
-                chat.put("auditing", "default");
-                parameter.put("chat", chat);
-
-                // Payload
-                JSONObject payload = new JSONObject();
-                JSONObject message = new JSONObject();
-                JSONArray text = new JSONArray();
-
-                // History
-                if (!historyList.isEmpty()) {
-                    for (RoleContent tempRoleContent : historyList) {
-                        if ("user".equals(tempRoleContent.role)) {
-                            text.add(JSON.toJSON(tempRoleContent));
-                        }
-                    }
-                }
-
-                // New question
-                RoleContent roleContent = new RoleContent();
-                roleContent.role = "user";
-                roleContent.content = question;
-                text.add(JSON.toJSON(roleContent));
-
-                message.put("text", text);
-                payload.put("message", message);
-
-                requestJson.put("header", header);
-                requestJson.put("parameter", parameter);
-                requestJson.put("payload", payload);
-
-                String requestStr = requestJson.toJSONString();
-                webSocket.send(requestStr);
+                webSocket.send(buildRequest(userNode));
             } catch (Exception e) {
                 sendErrorToClient("WebSocket初始化失败: " + e.getMessage());
                 webSocket.close(1000, "Initialization failed");
@@ -250,17 +293,23 @@ public class SparkChatService {
             sendErrorToClient(errorMsg);
         }
 
+        /**
+         * AI回复结束后再写入历史，节点一旦创建不再修改
+         */
+        private synchronized void saveAnswer() {
+            if (!answerSaved) {
+                answerSaved = true;
+                appendAnswer(conversationId, userNode, answer.toString());
+            }
+        }
+
         private void sendChunkToClient(String chunk) {
+            // 累积AI消息内容，客户端断开后也继续累积，避免保存不完整的回复
+            answer.append(chunk);
+
             SseEmitter emitter = sseEmitters.get(streamId);
             if (emitter != null) {
                 try {
-                    // 更新最后一条AI消息内容
-                    if (!historyList.isEmpty()) {
-                        RoleContent lastMessage = historyList.get(historyList.size() - 1);
-                        if ("assistant".equals(lastMessage.role)) {
-                            lastMessage.content += chunk;
-                        }
-                    }
 
                     Map<String, Object> data = new HashMap<>();
                     data.put("content", chunk);
@@ -278,6 +327,7 @@ public class SparkChatService {
         }
 
         private void completeClientStream() {
+            saveAnswer();
             SseEmitter emitter = sseEmitters.get(streamId);
             if (emitter != null) {
                 try {
@@ -300,6 +350,7 @@ public class SparkChatService {
         }
 
         private void sendErrorToClient(String errorMsg) {
+            saveAnswer();
             SseEmitter emitter = sseEmitters.get(streamId);
             if (emitter != null) {
                 try {
@@ -339,6 +390,46 @@ public class SparkChatService {
         }
     }
 
+    /**
+     * 不可变的历史节点，通过parent指针构成持久化链表
+     * 多个会话可指向同一节点，从而共享公共前缀
+     */
+    static final class HistoryNode {
+        final HistoryNode parent;
+        // 跳跃指针(skew-binary)，用于在O(log n)内定位祖先节点
+        final HistoryNode jump;
+        final String role;
+        final String content;
+        final int size;
+        // 用户消息在请求text数组中的JSON片段，节点创建时生成，各分支共用；AI回复不发送，为null
+        final String json;
+
+        HistoryNode(HistoryNode parent, String role, String content) {
+            this.parent = parent;
+            this.role = role;
+            this.content = content;
+            this.size = parent == null ? 1 : parent.size + 1;
+            if (parent != null && parent.jump != null && parent.jump.jump != null
+                    && parent.size - parent.jump.size == parent.jump.size - parent.jump.jump.size) {
+                this.jump = parent.jump.jump;
+            } else {
+                this.jump = parent;
+            }
+            this.json = "user".equals(role) ? JSON.toJSONString(newRoleContent(role, content)) : null;
+        }
+
+        /**
+         * @return 前size条消息对应的节点，size为0时返回null
+         */
+        HistoryNode ancestor(int size) {
+            HistoryNode node = this;
+            while (node != null && node.size > size) {
+                node = node.jump != null && node.jump.size >= size ? node.jump : node.parent;
+            }
+            return node;
+        }
+    }
+
     private static class JsonParse {
         private Header header;
         private Payload payload;
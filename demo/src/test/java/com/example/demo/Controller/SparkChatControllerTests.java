@@ -0,0 +1,59 @@
+package com.example.demo.Controller;
+
+import com.example.demo.Service.SparkChatService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class SparkChatControllerTests {
+
+	private SparkChatService sparkChatService;
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void setUp() {
+		sparkChatService = mock(SparkChatService.class);
+		SparkChatController controller = new SparkChatController();
+		ReflectionTestUtils.setField(controller, "sparkChatService", sparkChatService);
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@Test
+	void forkHistoryReturnsNewConversationId() throws Exception {
+		when(sparkChatService.forkConversation("chat-1", 2)).thenReturn("fork-1");
+
+		mockMvc.perform(post("/SparkAPI/forkHistory").param("conversationId", "chat-1").param("messages", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.data").value("fork-1"));
+	}
+
+	@Test
+	void forkHistoryRejectsOutOfRange() throws Exception {
+		when(sparkChatService.forkConversation(SparkChatService.DEFAULT_CONVERSATION, 9))
+				.thenThrow(new IllegalArgumentException("messages超出范围"));
+
+		mockMvc.perform(post("/SparkAPI/forkHistory").param("messages", "9"))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.status").value(400));
+	}
+
+	@Test
+	void clearHistoryOnlyClearsGivenConversation() throws Exception {
+		mockMvc.perform(delete("/SparkAPI/delHistory").param("conversationId", "chat-1"))
+				.andExpect(status().isOk());
+		mockMvc.perform(delete("/SparkAPI/delHistory"))
+				.andExpect(status().isOk());
+
+		verify(sparkChatService).clearChatHistory("chat-1");
+		verify(sparkChatService).clearChatHistory(SparkChatService.DEFAULT_CONVERSATION);
+	}
+
+}
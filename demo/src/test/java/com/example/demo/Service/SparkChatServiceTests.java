@@ -0,0 +1,218 @@
+package com.example.demo.Service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.example.demo.Config.SparkConfig;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SparkChatServiceTests {
+
+	private SparkConfig sparkConfig;
+	private OkHttpClient okHttpClient;
+	private SparkChatService sparkChatService;
+
+	@BeforeEach
+	void setUp() {
+		sparkConfig = new SparkConfig();
+		ReflectionTestUtils.setField(sparkConfig, "hostUrl", "https://spark-api.xf-yun.com/v3.5/chat");
+		ReflectionTestUtils.setField(sparkConfig, "domain", "generalv3.5");
+		ReflectionTestUtils.setField(sparkConfig, "appid", "appid");
+		ReflectionTestUtils.setField(sparkConfig, "apiKey", "apiKey");
+		ReflectionTestUtils.setField(sparkConfig, "apiSecret", "apiSecret");
+		ReflectionTestUtils.setField(sparkConfig, "maxConversations", 1000);
+
+		okHttpClient = mock(OkHttpClient.class);
+		sparkChatService = new SparkChatService();
+		ReflectionTestUtils.setField(sparkChatService, "sparkConfig", sparkConfig);
+		ReflectionTestUtils.setField(sparkChatService, "okHttpClient", okHttpClient);
+	}
+
+	@Test
+	void forkSharesPrefix() {
+		chat("default", "q1", "a1");
+		chat("default", "q2", "a2");
+
+		String forkId = sparkChatService.forkConversation("default", 2);
+
+		SparkChatService.HistoryNode head = sparkChatService.head("default");
+		assertSame(head.parent.parent, sparkChatService.head(forkId));
+		assertEquals(List.of("q1", "a1"), contents(sparkChatService.getChatHistory(forkId)));
+	}
+
+	@Test
+	void historyOrderAfterFork() {
+		chat("default", "q1", "a1");
+		chat("default", "q2", "a2");
+		String forkId = sparkChatService.forkConversation("default", 2);
+
+		chat(forkId, "q3", "a3");
+
+		assertEquals(List.of("q1", "a1", "q3", "a3"), contents(sparkChatService.getChatHistory(forkId)));
+		assertEquals(List.of("q1", "a1", "q2", "a2"), contents(sparkChatService.getChatHistory("default")));
+		assertEquals(List.of("user", "assistant", "user", "assistant"),
+				sparkChatService.getChatHistory(forkId).stream().map(SparkChatService.RoleContent::getRole).toList());
+	}
+
+	@Test
+	void forkAtEveryPosition() {
+		for (int i = 0; i < 100; i++) {
+			sparkChatService.append("default", i % 2 == 0 ? "user" : "assistant", "m" + i);
+		}
+		List<String> all = contents(sparkChatService.getChatHistory("default"));
+
+		for (int messages = 0; messages <= 100; messages++) {
+			String forkId = sparkChatService.forkConversation("default", messages);
+			assertEquals(all.subList(0, messages), contents(sparkChatService.getChatHistory(forkId)));
+		}
+	}
+
+	@Test
+	void forkRejectsOutOfRange() {
+		chat("default", "q1", "a1");
+
+		assertThrows(IllegalArgumentException.class, () -> sparkChatService.forkConversation("default", -1));
+		assertThrows(IllegalArgumentException.class, () -> sparkChatService.forkConversation("default", 3));
+	}
+
+	@Test
+	void forkMissingConversation() {
+		String forkId = sparkChatService.forkConversation("missing", 0);
+
+		assertNotNull(forkId);
+		assertTrue(sparkChatService.getChatHistory(forkId).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> sparkChatService.forkConversation("missing", 1));
+
+		chat(forkId, "q1", "a1");
+		assertEquals(List.of("q1", "a1"), contents(sparkChatService.getChatHistory(forkId)));
+	}
+
+	@Test
+	void requestContainsEachQuestionOnce() {
+		String first = chat("default", "q1", "a1");
+		String second = chat("default", "q2", "a2");
+
+		assertEquals(List.of("q1"), requestQuestions(first));
+		assertEquals(List.of("q1", "q2"), requestQuestions(second));
+		JSONArray text = JSON.parseObject(second).getJSONObject("payload").getJSONObject("message").getJSONArray("text");
+		for (int i = 0; i < text.size(); i++) {
+			assertEquals("user", text.getJSONObject(i).getString("role"));
+		}
+		assertEquals("generalv3.5", JSON.parseObject(second).getJSONObject("parameter").getJSONObject("chat").getString("domain"));
+	}
+
+	@Test
+	void onlyUserMessagesCacheJson() {
+		chat("default", "q1", "a1");
+
+		SparkChatService.HistoryNode head = sparkChatService.head("default");
+		assertNull(head.json);
+		assertNotNull(head.parent.json);
+	}
+
+	@Test
+	void answerAttachedToItsQuestion() {
+		SparkChatService.HistoryNode first = sparkChatService.append("default", "user", "q1");
+		SparkChatService.HistoryNode second = sparkChatService.append("default", "user", "q2");
+
+		sparkChatService.appendAnswer("default", first, "a1");
+		assertEquals(List.of("q1", "q2"), contents(sparkChatService.getChatHistory("default")));
+
+		sparkChatService.appendAnswer("default", second, "a2");
+		assertEquals(List.of("q1", "q2", "a2"), contents(sparkChatService.getChatHistory("default")));
+	}
+
+	@Test
+	void answerDroppedAfterClear() {
+		SparkChatService.HistoryNode question = sparkChatService.append("default", "user", "q1");
+		sparkChatService.clearChatHistory("default");
+
+		sparkChatService.appendAnswer("default", question, "a1");
+
+		assertTrue(sparkChatService.getChatHistory("default").isEmpty());
+	}
+
+	@Test
+	void answerCompleteAfterClientDisconnect() {
+		sparkChatService.chatWithSparkStream("default", "q1", "stream", new SseEmitter());
+		WebSocketListener listener = lastListener();
+		WebSocket webSocket = mock(WebSocket.class);
+		listener.onOpen(webSocket, null);
+
+		listener.onMessage(webSocket, response("Hel", 1));
+		((Map<?, ?>) ReflectionTestUtils.getField(sparkChatService, "sseEmitters")).clear();
+		listener.onMessage(webSocket, response("lo", 2));
+
+		assertEquals(List.of("q1", "Hello"), contents(sparkChatService.getChatHistory("default")));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedConversation() {
+		ReflectionTestUtils.setField(sparkConfig, "maxConversations", 2);
+		sparkChatService.append("a", "user", "qa");
+		sparkChatService.append("b", "user", "qb");
+		sparkChatService.getChatHistory("a");
+
+		sparkChatService.append("c", "user", "qc");
+
+		assertNull(sparkChatService.head("b"));
+		assertNotNull(sparkChatService.head("a"));
+		assertNotNull(sparkChatService.head("c"));
+	}
+
+	/**
+	 * 模拟一次完整的对话，返回发送给星火API的请求体
+	 */
+	private String chat(String conversationId, String question, String answer) {
+		sparkChatService.chatWithSparkStream(conversationId, question, "stream", new SseEmitter());
+		WebSocketListener listener = lastListener();
+		WebSocket webSocket = mock(WebSocket.class);
+
+		listener.onOpen(webSocket, null);
+		ArgumentCaptor<String> request = ArgumentCaptor.forClass(String.class);
+		verify(webSocket).send(request.capture());
+
+		listener.onMessage(webSocket, response(answer, 2));
+		return request.getValue();
+	}
+
+	private WebSocketListener lastListener() {
+		ArgumentCaptor<WebSocketListener> listener = ArgumentCaptor.forClass(WebSocketListener.class);
+		verify(okHttpClient, atLeastOnce()).newWebSocket(any(Request.class), listener.capture());
+		return listener.getValue();
+	}
+
+	private static String response(String content, int status) {
+		return "{\"header\":{\"code\":0,\"status\":" + status + "}," +
+				"\"payload\":{\"choices\":{\"text\":[{\"content\":\"" + content + "\"}]}}}";
+	}
+
+	private static List<String> requestQuestions(String request) {
+		JSONArray text = JSON.parseObject(request).getJSONObject("payload").getJSONObject("message").getJSONArray("text");
+		List<String> questions = new ArrayList<>();
+		for (int i = 0; i < text.size(); i++) {
+			questions.add(text.getJSONObject(i).getString("content"));
+		}
+		return questions;
+	}
+
+	private static List<String> contents(List<SparkChatService.RoleContent> history) {
+		return history.stream().map(SparkChatService.RoleContent::getContent).toList();
+	}
+
+}